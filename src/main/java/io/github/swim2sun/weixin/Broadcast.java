@@ -0,0 +1,136 @@
+package io.github.swim2sun.weixin;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Handle of one broadcast started by {@link Weixin#broadcast}, report progress and per recipient
+ * result, can be cancelled
+ *
+ * @author swim2sun
+ * @version 1.0 2018-09-05.
+ */
+@Slf4j
+public class Broadcast {
+  @Getter private final int total;
+  private final Map<User, Result> results;
+  private final AtomicInteger succeeded;
+  private final AtomicInteger failed;
+  private final AtomicInteger cancelled;
+  private final CountDownLatch latch;
+  private final BiConsumer<User, Result> progress;
+  private volatile boolean cancelRequested;
+
+  Broadcast(int total, BiConsumer<User, Result> progress) {
+    this.total = total;
+    this.progress = progress;
+    results = new IdentityHashMap<>(total);
+    succeeded = new AtomicInteger(0);
+    failed = new AtomicInteger(0);
+    cancelled = new AtomicInteger(0);
+    latch = new CountDownLatch(total);
+  }
+
+  public int getSucceeded() {
+    return succeeded.get();
+  }
+
+  public int getFailed() {
+    return failed.get();
+  }
+
+  public int getCancelled() {
+    return cancelled.get();
+  }
+
+  /**
+   * recipients already finished, whether succeed, failed or cancelled
+   *
+   * @return finished count
+   */
+  public int getCompleted() {
+    return succeeded.get() + failed.get() + cancelled.get();
+  }
+
+  public boolean isDone() {
+    return latch.getCount() == 0;
+  }
+
+  /** cancel broadcast, messages in flight still finish, pending recipients are skipped */
+  public void cancel() {
+    cancelRequested = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelRequested;
+  }
+
+  /**
+   * wait until every recipient finished
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void await() throws InterruptedException {
+    latch.await();
+  }
+
+  /**
+   * wait until every recipient finished or timeout
+   *
+   * @param timeout max time to wait
+   * @param unit time unit of timeout
+   * @return true if finished, false if timeout
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+    return latch.await(timeout, unit);
+  }
+
+  /**
+   * result of finished recipients
+   *
+   * @return recipient -&gt; result
+   */
+  public Map<User, Result> getResults() {
+    synchronized (results) {
+      return Collections.unmodifiableMap(new IdentityHashMap<>(results));
+    }
+  }
+
+  void complete(User receiver, Result result) {
+    synchronized (results) {
+      results.put(receiver, result);
+    }
+    switch (result) {
+      case SUCCESS:
+        succeeded.incrementAndGet();
+        break;
+      case FAILED:
+        failed.incrementAndGet();
+        break;
+      default:
+        cancelled.incrementAndGet();
+    }
+    latch.countDown();
+    try {
+      progress.accept(receiver, result);
+    } catch (Exception e) {
+      log.error("broadcast progress callback has error", e);
+    }
+  }
+
+  /** result of one recipient */
+  public enum Result {
+    SUCCESS,
+    FAILED,
+    CANCELLED
+  }
+}
@@ -1,29 +1,67 @@
 package io.github.swim2sun.weixin;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Setter;
 import org.json.JSONObject;
 
 import java.util.Random;
 import java.util.stream.IntStream;
 
 /**
+ * Login context of one account. Credentials and SyncKey are immutable snapshots replaced as a whole
+ * through volatile fields, so every thread reads a consistent value.
+ *
  * @author xyyou
  * @version 1.0 2018-08-31.
  */
 @Data
 class Context {
+    private static final String[] HOSTS = {"wx2.qq.com", "wx.qq.com"};
+
     private final String deviceId;
-    private String passTicket;
-    private String skey;
-    private String sid;
-    private String uin;
-    private String syncKeyStr;
-    private JSONObject syncKey;
+    /** host of login redirect, sync check fails over between it and one alternate host */
+    private volatile String loginHost = HOSTS[0];
+    private volatile String host = HOSTS[0];
+    private volatile Credentials credentials = Credentials.EMPTY;
+    @Setter(AccessLevel.NONE)
+    private volatile SyncKey syncKey = SyncKey.EMPTY;
 
     public Context() {
         deviceId = generateDeviceId();
     }
 
+    /**
+     * set host of login redirect, and use it from now on
+     *
+     * @param loginHost host of login redirect, e.g. wx8.qq.com
+     */
+    void setLoginHost(String loginHost) {
+        this.loginHost = loginHost;
+        this.host = loginHost;
+    }
+
+    /**
+     * fail over between login host and one alternate host: wx.qq.com for wx2.qq.com, otherwise
+     * wx2.qq.com
+     *
+     * @return new host
+     */
+    String switchHost() {
+        String alternate = HOSTS[0].equals(loginHost) ? HOSTS[1] : HOSTS[0];
+        host = loginHost.equals(host) ? alternate : loginHost;
+        return host;
+    }
+
+    /**
+     * replace SyncKey
+     *
+     * @param syncKey SyncKey object of webwxinit / webwxsync response
+     */
+    void updateSyncKey(JSONObject syncKey) {
+        this.syncKey = SyncKey.parse(syncKey);
+    }
+
     /**
      * generate device id
      *
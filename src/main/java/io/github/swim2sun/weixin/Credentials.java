@@ -0,0 +1,20 @@
+package io.github.swim2sun.weixin;
+
+import lombok.Value;
+
+/**
+ * Immutable login credentials of one account. Replaced as a whole on login, so a request never
+ * mixes values of two logins.
+ *
+ * @author swim2sun
+ * @version 1.0 2018-09-06.
+ */
+@Value
+class Credentials {
+  static final Credentials EMPTY = new Credentials(null, null, null, null);
+
+  private String skey;
+  private String sid;
+  private String uin;
+  private String passTicket;
+}
@@ -0,0 +1,108 @@
+package io.github.swim2sun.weixin;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Latency profile of one login. {@link Phase#WAIT_CONFIRM} to {@link Phase#CONTACT_LIST} are
+ * durations of each phase, {@link Phase#FIRST_SYNC_CHECK}, {@link Phase#FIRST_MESSAGE} and {@link
+ * Phase#FIRST_DELIVERY} are elapsed time since login confirmed on phone.
+ *
+ * @author swim2sun
+ * @version 1.0 2018-09-07.
+ */
+public class LoginProfile {
+  private final Map<Phase, Long> phaseMillis;
+  private volatile long qrcodeNanos;
+  private volatile long confirmNanos;
+
+  LoginProfile() {
+    phaseMillis = Collections.synchronizedMap(new EnumMap<>(Phase.class));
+  }
+
+  /**
+   * get time of one phase
+   *
+   * @param phase login phase
+   * @return milliseconds, null if phase not reached yet
+   */
+  public Long getMillis(Phase phase) {
+    return phaseMillis.get(phase);
+  }
+
+  /**
+   * get time of all reached phases
+   *
+   * @return phase -&gt; milliseconds, in phase order
+   */
+  public Map<Phase, Long> getPhases() {
+    synchronized (phaseMillis) {
+      return Collections.unmodifiableMap(new EnumMap<>(phaseMillis));
+    }
+  }
+
+  void qrcodeRequested() {
+    phaseMillis.clear();
+    qrcodeNanos = System.nanoTime();
+  }
+
+  void confirmed() {
+    confirmNanos = System.nanoTime();
+    phaseMillis.put(Phase.WAIT_CONFIRM, toMillis(confirmNanos - qrcodeNanos));
+  }
+
+  /**
+   * record duration of one phase
+   *
+   * @param phase login phase
+   * @param startNanos {@link System#nanoTime()} when phase started
+   */
+  void record(Phase phase, long startNanos) {
+    phaseMillis.put(phase, toMillis(System.nanoTime() - startNanos));
+  }
+
+  /**
+   * record elapsed time since login confirmed, only the first time counts
+   *
+   * @param phase login phase
+   * @return true if this is the first time
+   */
+  boolean mark(Phase phase) {
+    if (phaseMillis.containsKey(phase)) {
+      return false;
+    }
+    return phaseMillis.putIfAbsent(phase, toMillis(System.nanoTime() - confirmNanos)) == null;
+  }
+
+  private static long toMillis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  @Override
+  public String toString() {
+    return getPhases()
+        .entrySet()
+        .stream()
+        .map(e -> e.getKey() + "=" + e.getValue() + "ms")
+        .collect(Collectors.joining(", ", "LoginProfile(", ")"));
+  }
+
+  /** login phase */
+  public enum Phase {
+    /** from qrcode requested to login confirmed on phone */
+    WAIT_CONFIRM,
+    NEW_LOGIN_PAGE,
+    INIT,
+    STATUS_NOTIFY,
+    /** contact list download, runs concurrently with sync check */
+    CONTACT_LIST,
+    FIRST_SYNC_CHECK,
+    /** first message arrived in webwxsync */
+    FIRST_MESSAGE,
+    /** first message delivered to listeners and streams, waits for contact list to resolve users */
+    FIRST_DELIVERY
+  }
+}
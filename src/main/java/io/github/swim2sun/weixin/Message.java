@@ -7,8 +7,6 @@ import lombok.extern.slf4j.Slf4j;
 import org.json.JSONObject;
 
 import java.util.Objects;
-import java.util.Random;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
@@ -26,8 +24,6 @@ public class Message {
   @Getter private User to;
   @Getter private String content;
 
-  private static final Random random = new Random();
-
   static Message of(Weixin weixin, JSONObject json) {
     String fromUserName = json.getString("FromUserName");
     String toUserName = json.getString("ToUserName");
@@ -46,24 +42,29 @@ public class Message {
   }
 
   JSONObject toJson(Weixin weixin) {
+    return toJson(weixin, weixin.nextMsgId());
+  }
+
+  /**
+   * convert to Msg object of webwxsendmsg
+   *
+   * @param weixin account which sends this message
+   * @param msgId LocalID / ClientMsgId, same id must be used when the message is sent again
+   * @return Msg object of webwxsendmsg
+   */
+  JSONObject toJson(Weixin weixin, long msgId) {
     if (Objects.isNull(from)) {
       from = weixin.getUser();
     }
-    String msgId = generateId();
+    // sent as string, 17 digits don't fit the double of a JSON number
+    String id = String.valueOf(msgId);
     return new JSONObject()
         .put("Type", type.getId())
         .put("Content", content)
         .put("FromUserName", from.getUserName())
         .put("ToUserName", to.getUserName())
-        .put("LocalID", msgId)
-        .put("ClientMsgId", msgId);
-  }
-
-  private static String generateId() {
-    StringBuilder sb = new StringBuilder();
-    sb.append(System.currentTimeMillis());
-    IntStream.range(0, 4).forEach(i -> sb.append(random.nextInt(10)));
-    return sb.toString();
+        .put("LocalID", id)
+        .put("ClientMsgId", id);
   }
 
   public enum Type {
@@ -0,0 +1,275 @@
+package io.github.swim2sun.weixin;
+
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static io.github.swim2sun.weixin.Preconditions.checkArgument;
+
+/**
+ * Hot message stream of one or more accounts, subscribers receive messages arriving after they
+ * subscribe. Each subscriber has its own bounded buffer and is served on the executor, only as many
+ * messages as it requested are delivered, overflow is handled by {@link OverflowStrategy}. Once the
+ * executor rejects work (e.g. account closed), subscribers are served on the calling thread, so
+ * {@code subscribe} and {@code request} never throw. The stream is attached to its accounts only
+ * while it has subscribers, so an abandoned stream costs the accounts nothing.
+ *
+ * @author swim2sun
+ * @version 1.0 2018-09-14.
+ */
+@Slf4j
+class MessagePublisher implements Publisher<Message> {
+  private static final long PAUSE_WAIT_MILLIS = 100;
+
+  private final Executor executor;
+  private final int bufferSize;
+  private final OverflowStrategy strategy;
+  /** changed under its own lock together with attaching to / detaching from sources */
+  private final List<MessageSubscription> subscriptions;
+  /** accounts feeding this stream, stream completes when all of them closed */
+  private final List<Weixin> sources;
+
+  MessagePublisher(
+      Executor executor, int bufferSize, OverflowStrategy strategy, List<Weixin> sources) {
+    checkArgument(bufferSize > 0, "buffer size must be positive: " + bufferSize);
+    this.executor = executor;
+    this.bufferSize = bufferSize;
+    this.strategy = Objects.requireNonNull(strategy);
+    this.subscriptions = new CopyOnWriteArrayList<>();
+    this.sources = new ArrayList<>(sources);
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super Message> subscriber) {
+    Objects.requireNonNull(subscriber);
+    MessageSubscription subscription = new MessageSubscription(subscriber);
+    subscriber.onSubscribe(subscription);
+    synchronized (subscriptions) {
+      if (subscription.cancelled) {
+        return;
+      }
+      if (subscriptions.isEmpty()) {
+        sources.forEach(source -> source.attach(this));
+      }
+      subscriptions.add(subscription);
+    }
+    // checked after attaching, a source closing meanwhile completes the subscription itself
+    if (isSourcesClosed()) {
+      subscription.complete();
+    }
+  }
+
+  private void remove(MessageSubscription subscription) {
+    synchronized (subscriptions) {
+      if (subscriptions.remove(subscription) && subscriptions.isEmpty()) {
+        sources.forEach(source -> source.detach(this));
+      }
+    }
+  }
+
+  private boolean isSourcesClosed() {
+    return sources.stream().allMatch(Weixin::isClosed);
+  }
+
+  /**
+   * whether sync check should pause
+   *
+   * @return true if strategy is PAUSE and any subscriber's buffer is full
+   */
+  boolean isSaturated() {
+    if (strategy != OverflowStrategy.PAUSE) {
+      return false;
+    }
+    for (MessageSubscription subscription : subscriptions) {
+      if (subscription.isFull()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  boolean hasSubscribers() {
+    return !subscriptions.isEmpty();
+  }
+
+  /**
+   * publish message to every subscriber
+   *
+   * @param message received message
+   * @param aborted whether the offering account is closed, stop waiting for a PAUSE subscriber
+   */
+  void offer(Message message, BooleanSupplier aborted) {
+    subscriptions.forEach(subscription -> subscription.offer(message, aborted));
+  }
+
+  /** one source account closed, complete subscribers when all sources are closed */
+  void sourceClosed() {
+    if (isSourcesClosed()) {
+      subscriptions.forEach(MessageSubscription::complete);
+    }
+  }
+
+  private class MessageSubscription implements Subscription {
+    private final Subscriber<? super Message> subscriber;
+    /** guarded by itself */
+    private final ArrayDeque<Message> buffer;
+    private final AtomicLong requested;
+    private final AtomicInteger wip;
+    private volatile boolean cancelled;
+    private volatile boolean done;
+    /** invalid request, signaled by drain loop so signals never overlap */
+    private volatile Throwable error;
+
+    MessageSubscription(Subscriber<? super Message> subscriber) {
+      this.subscriber = subscriber;
+      this.buffer = new ArrayDeque<>(bufferSize);
+      this.requested = new AtomicLong(0);
+      this.wip = new AtomicInteger(0);
+    }
+
+    @Override
+    public void request(long n) {
+      if (cancelled) {
+        return;
+      }
+      if (n <= 0) {
+        error = new IllegalArgumentException("request must be positive: " + n);
+        drain();
+        return;
+      }
+      long current;
+      long next;
+      do {
+        current = requested.get();
+        next = current + n < 0 ? Long.MAX_VALUE : current + n;
+      } while (!requested.compareAndSet(current, next));
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      remove(this);
+      synchronized (buffer) {
+        buffer.clear();
+        buffer.notifyAll();
+      }
+    }
+
+    boolean isFull() {
+      synchronized (buffer) {
+        return buffer.size() >= bufferSize;
+      }
+    }
+
+    void offer(Message message, BooleanSupplier aborted) {
+      synchronized (buffer) {
+        while (buffer.size() >= bufferSize && !cancelled && !done && !aborted.getAsBoolean()) {
+          if (strategy == OverflowStrategy.DROP) {
+            log.debug("buffer full, drop message: {}", message);
+            return;
+          }
+          if (strategy == OverflowStrategy.LATEST) {
+            log.debug("buffer full, drop message: {}", buffer.poll());
+            continue;
+          }
+          try {
+            buffer.wait(PAUSE_WAIT_MILLIS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("interrupted while waiting subscriber, drop message: {}", message);
+            return;
+          }
+        }
+        if (cancelled || done || buffer.size() >= bufferSize) {
+          log.debug("stream terminated or account closed, drop message: {}", message);
+          return;
+        }
+        buffer.offer(message);
+      }
+      drain();
+    }
+
+    void complete() {
+      done = true;
+      synchronized (buffer) {
+        buffer.notifyAll();
+      }
+      drain();
+    }
+
+    private void drain() {
+      if (wip.getAndIncrement() == 0) {
+        try {
+          executor.execute(this::drainLoop);
+        } catch (RejectedExecutionException e) {
+          drainLoop();
+        }
+      }
+    }
+
+    private void drainLoop() {
+      int missed = 1;
+      while (true) {
+        long r = requested.get();
+        long emitted = 0;
+        while (emitted != r && !cancelled && Objects.isNull(error)) {
+          Message message;
+          synchronized (buffer) {
+            message = buffer.poll();
+            buffer.notifyAll();
+          }
+          if (Objects.isNull(message)) {
+            break;
+          }
+          try {
+            subscriber.onNext(message);
+          } catch (Exception e) {
+            log.error("subscriber has error", e);
+            cancel();
+          }
+          emitted++;
+        }
+        if (cancelled) {
+          return;
+        }
+        if (Objects.nonNull(error)) {
+          cancel();
+          subscriber.onError(error);
+          return;
+        }
+        if (done && !hasBuffered()) {
+          cancelled = true;
+          remove(this);
+          subscriber.onComplete();
+          return;
+        }
+        if (emitted != 0 && r != Long.MAX_VALUE) {
+          requested.addAndGet(-emitted);
+        }
+        missed = wip.addAndGet(-missed);
+        if (missed == 0) {
+          return;
+        }
+      }
+    }
+
+    private boolean hasBuffered() {
+      synchronized (buffer) {
+        return !buffer.isEmpty();
+      }
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package io.github.swim2sun.weixin;
+
+import lombok.Builder;
+import lombok.Singular;
+import org.json.JSONObject;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Route of one message listener, declares which messages the listener cares about. All conditions
+ * must match, an empty condition matches everything.
+ *
+ * <pre>{@code
+ * MsgRoute route =
+ *     MsgRoute.builder()
+ *         .type(Message.Type.TEXT)
+ *         .group(weixin.findUserByNickname("family"))
+ *         .contentPrefix("#todo")
+ *         .build();
+ * weixin.addMsgListener(msg -> save(msg), route);
+ * }</pre>
+ *
+ * <p>Route is compiled to username sets and a pattern when built, and evaluated against raw sync
+ * data, so messages that match no route are never turned into {@link Message}.
+ *
+ * @author swim2sun
+ * @version 1.0 2018-09-12.
+ */
+public final class MsgRoute {
+  /** route which matches every message */
+  public static final MsgRoute ALL = MsgRoute.builder().build();
+
+  private static final String GROUP_PREFIX = "@@";
+  /** group message content is "senderUserName:&lt;br/&gt;content" */
+  private static final String GROUP_CONTENT_SEPARATOR = ":<br/>";
+
+  private final Set<Integer> msgTypes;
+  private final Set<String> senderNames;
+  private final Set<String> groupNames;
+  private final String contentPrefix;
+  private final Pattern contentPattern;
+
+  /**
+   * @param types message types, any type if empty
+   * @param senders message senders, for group message it's the member who speaks
+   * @param groups groups which message comes from or is sent to, any chat if empty
+   * @param contentPrefix content starts with, for group message sender part is skipped
+   * @param contentRegex regex found in content, for group message sender part is skipped
+   */
+  @Builder
+  private MsgRoute(
+      @Singular Set<Message.Type> types,
+      @Singular("from") Set<User> senders,
+      @Singular Set<User> groups,
+      String contentPrefix,
+      String contentRegex) {
+    this.msgTypes = types.stream().map(Message.Type::getId).collect(Collectors.toSet());
+    this.senderNames = senders.stream().map(User::getUserName).collect(Collectors.toSet());
+    this.groupNames = groups.stream().map(User::getUserName).collect(Collectors.toSet());
+    this.contentPrefix = contentPrefix;
+    this.contentPattern = Objects.isNull(contentRegex) ? null : Pattern.compile(contentRegex);
+  }
+
+  /**
+   * match raw message of webwxsync AddMsgList, cheap conditions first
+   *
+   * @param raw raw message
+   * @return whether message matches this route
+   */
+  boolean matches(JSONObject raw) {
+    if (!msgTypes.isEmpty() && !msgTypes.contains(raw.getInt("MsgType"))) {
+      return false;
+    }
+    String fromUserName = raw.getString("FromUserName");
+    if (!groupNames.isEmpty()
+        && !groupNames.contains(fromUserName)
+        && !groupNames.contains(raw.optString("ToUserName"))) {
+      return false;
+    }
+    if (senderNames.isEmpty() && Objects.isNull(contentPrefix) && Objects.isNull(contentPattern)) {
+      return true;
+    }
+    String content = raw.optString("Content");
+    String sender = fromUserName;
+    int offset = 0;
+    if (fromUserName.startsWith(GROUP_PREFIX)) {
+      int index = content.indexOf(GROUP_CONTENT_SEPARATOR);
+      if (index > 0) {
+        sender = senderNames.isEmpty() ? null : content.substring(0, index);
+        offset = index + GROUP_CONTENT_SEPARATOR.length();
+      }
+    }
+    if (!senderNames.isEmpty() && !senderNames.contains(sender)) {
+      return false;
+    }
+    if (Objects.nonNull(contentPrefix) && !content.startsWith(contentPrefix, offset)) {
+      return false;
+    }
+    return Objects.isNull(contentPattern)
+        || contentPattern.matcher(content).region(offset, content.length()).find();
+  }
+}
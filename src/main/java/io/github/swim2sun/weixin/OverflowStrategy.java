@@ -0,0 +1,16 @@
+package io.github.swim2sun.weixin;
+
+/**
+ * What message stream does when buffer of a subscriber is full
+ *
+ * @author swim2sun
+ * @version 1.0 2018-09-14.
+ */
+public enum OverflowStrategy {
+  /** pause sync check until subscriber catches up, no message is lost */
+  PAUSE,
+  /** drop the new message */
+  DROP,
+  /** drop the oldest buffered message, keep the latest */
+  LATEST
+}
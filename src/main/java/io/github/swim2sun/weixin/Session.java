@@ -0,0 +1,110 @@
+package io.github.swim2sun.weixin;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of one login session: current user and contacts. Every change creates a new
+ * snapshot, which is swapped atomically by {@link Weixin}, so readers never see a half updated
+ * contact list.
+ *
+ * @author swim2sun
+ * @version 1.0 2018-09-06.
+ */
+final class Session {
+  static final Session EMPTY = new Session(null, null, Collections.emptyMap());
+
+  /** current login user, null before webwxinit */
+  @Getter private final User user;
+  /** unmodifiable contact list, null before contacts are downloaded */
+  @Getter private final List<User> contactList;
+
+  private final Map<String, User> userNameIndex;
+  /**
+   * contact changes arrived before contacts are downloaded, username -&gt; modified contact, or
+   * null if deleted. Replayed on top of the downloaded contact list.
+   */
+  private final Map<String, User> pendingChanges;
+
+  private Session(User user, List<User> contactList, Map<String, User> pendingChanges) {
+    this.user = user;
+    this.pendingChanges = pendingChanges;
+    if (Objects.isNull(contactList)) {
+      this.contactList = null;
+      this.userNameIndex = Collections.emptyMap();
+    } else {
+      this.contactList = Collections.unmodifiableList(contactList);
+      Map<String, User> index = new HashMap<>(contactList.size() * 2);
+      contactList.forEach(u -> index.put(u.getUserName(), u));
+      this.userNameIndex = index;
+    }
+  }
+
+  Session withUser(User user) {
+    return new Session(user, contactList, pendingChanges);
+  }
+
+  /**
+   * install downloaded contact list, replay contact changes arrived during download
+   *
+   * @param contactList downloaded contact list
+   * @return new snapshot
+   */
+  Session withContactList(List<User> contactList) {
+    List<User> contacts = new ArrayList<>(contactList.size() + pendingChanges.size());
+    for (User u : contactList) {
+      if (!pendingChanges.containsKey(u.getUserName())) {
+        contacts.add(u);
+      }
+    }
+    pendingChanges.values().stream().filter(Objects::nonNull).forEach(contacts::add);
+    return new Session(user, contacts, Collections.emptyMap());
+  }
+
+  /**
+   * apply contact changes of webwxsync
+   *
+   * @param modified added or modified contacts
+   * @param deleted username of deleted contacts
+   * @return new snapshot, changes are kept as pending if contacts not loaded yet
+   */
+  Session withContactChanges(Collection<User> modified, Collection<String> deleted) {
+    if (Objects.isNull(contactList)) {
+      Map<String, User> pending = new LinkedHashMap<>(pendingChanges);
+      deleted.forEach(userName -> pending.put(userName, null));
+      modified.forEach(u -> pending.put(u.getUserName(), u));
+      return new Session(user, null, Collections.unmodifiableMap(pending));
+    }
+    Set<String> removed = new HashSet<>(deleted);
+    modified.forEach(u -> removed.add(u.getUserName()));
+    List<User> contacts = new ArrayList<>(contactList.size() + modified.size());
+    for (User u : contactList) {
+      if (!removed.contains(u.getUserName())) {
+        contacts.add(u);
+      }
+    }
+    contacts.addAll(modified);
+    return new Session(user, contacts, Collections.emptyMap());
+  }
+
+  boolean isContactLoaded() {
+    return Objects.nonNull(contactList);
+  }
+
+  User findByUserName(String userName) {
+    if (Objects.nonNull(user) && user.getUserName().equals(userName)) {
+      return user;
+    }
+    return userNameIndex.get(userName);
+  }
+}
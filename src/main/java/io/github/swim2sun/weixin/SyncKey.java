@@ -0,0 +1,73 @@
+package io.github.swim2sun.weixin;
+
+import lombok.Getter;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Immutable SyncKey, held as int pairs with query and json form rendered once when parsed, so
+ * synccheck and webwxsync write it straight into the request.
+ *
+ * @author swim2sun
+ * @version 1.0 2018-09-06.
+ */
+final class SyncKey {
+  static final SyncKey EMPTY = new SyncKey(new int[0]);
+
+  /** key0, val0, key1, val1 ... */
+  private final int[] pairs;
+  /** query form for synccheck: 1_xxx|2_xxx */
+  @Getter private final String query;
+  /** json form for webwxsync body: {"Count":2,"List":[{"Key":1,"Val":xxx},...]} */
+  @Getter private final String json;
+
+  private SyncKey(int[] pairs) {
+    this.pairs = pairs;
+    int count = getCount();
+    StringBuilder sb = new StringBuilder(count * 24 + 32);
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        sb.append('|');
+      }
+      sb.append(pairs[i * 2]).append('_').append(pairs[i * 2 + 1]);
+    }
+    this.query = sb.toString();
+
+    sb.setLength(0);
+    sb.append("{\"Count\":").append(count).append(",\"List\":[");
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append("{\"Key\":")
+          .append(pairs[i * 2])
+          .append(",\"Val\":")
+          .append(pairs[i * 2 + 1])
+          .append('}');
+    }
+    sb.append("]}");
+    this.json = sb.toString();
+  }
+
+  /**
+   * parse SyncKey
+   *
+   * @param syncKey SyncKey object of webwxinit / webwxsync response
+   * @return sync key
+   */
+  static SyncKey parse(JSONObject syncKey) {
+    JSONArray list = syncKey.getJSONArray("List");
+    int count = list.length();
+    int[] pairs = new int[count * 2];
+    for (int i = 0; i < count; i++) {
+      JSONObject pair = list.getJSONObject(i);
+      pairs[i * 2] = pair.getInt("Key");
+      pairs[i * 2 + 1] = pair.getInt("Val");
+    }
+    return new SyncKey(pairs);
+  }
+
+  int getCount() {
+    return pairs.length / 2;
+  }
+}
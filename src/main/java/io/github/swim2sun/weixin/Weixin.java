@@ -1,15 +1,25 @@
 package io.github.swim2sun.weixin;
 
-import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.reactivestreams.Publisher;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -20,29 +30,90 @@ import static io.github.swim2sun.weixin.Preconditions.checkState;
  * {@code io.github.swim2sun.weixin.Weixin} Entity which hold one weixin account, manage account
  * status
  *
+ * <p>Concurrency model: one instance is used by three kinds of threads, the login thread (qrcode
+ * polling, webwxnewloginpage, webwxinit), the sync thread (synccheck loop and recovery) and caller
+ * threads (getters, sendMsg, broadcast). All methods are thread safe:
+ *
+ * <ul>
+ *   <li>user and contacts live in an immutable {@link Session} snapshot, every change swaps a new
+ *       snapshot atomically, getters read the current snapshot without locking
+ *   <li>listeners are kept in concurrent collections, can be added from any thread
+ *   <li>login credentials and SyncKey in {@link Context} are immutable snapshots in volatile
+ *       fields, each request reads the credentials once
+ *   <li>status is swapped atomically, listeners are notified only by the thread which actually
+ *       changed it
+ * </ul>
+ *
  * @author swim2sun
  * @version 1.0 2018-08-17.
  */
 @Slf4j
 public class Weixin implements AutoCloseable {
-  private Context context;
-  @Getter private User user;
-  private List<User> contactList;
-  private Http http;
-  private ExecutorService executorService;
-  private Set<WeixinMsgListener> listeners;
-  private AtomicInteger errorTimes;
-  private volatile boolean online;
-
-  // todo online method
-
-  private Weixin() {
+  private static final Pattern SYNC_CHECK_PATTERN =
+      Pattern.compile("\\{retcode:\"(.+?)\",selector:\"(.+?)\"\\}");
+  /** max continuous sync check failures before giving up */
+  private static final int MAX_RETRY_TIMES = 5;
+  private static final long INITIAL_BACKOFF_MILLIS = 1000;
+  private static final long MAX_BACKOFF_MILLIS = 60 * 1000;
+  /** max webwxsync rounds for one wake-up while server reports ContinueFlag */
+  private static final int MAX_SYNC_ROUNDS = 10;
+  /** idle delay after no-op wake-ups, far below the ~25s synccheck long poll */
+  private static final long MIN_IDLE_MILLIS = 200;
+  private static final long MAX_IDLE_MILLIS = 2000;
+  /** min interval between two webwxsync, wake-ups arriving within it are drained by one sync */
+  private static final long COALESCE_MILLIS = 100;
+  /** MsgType of status notify message, sent when user operates chats on phone */
+  private static final int MSG_TYPE_STATUS_NOTIFY = 51;
+  private static final int DEFAULT_BROADCAST_CONCURRENCY = 4;
+  /** max send times of one broadcast recipient, including the first one */
+  private static final int MAX_SEND_TIMES = 3;
+  /** wait before resending a broadcast message, multiplied by attempts made */
+  private static final long SEND_RETRY_BACKOFF_MILLIS = 1000;
+  private static final int DEFAULT_STREAM_BUFFER_SIZE = 256;
+  /** check interval while sync check is paused by saturated subscribers */
+  private static final long PAUSE_CHECK_MILLIS = 100;
+
+  private final Context context;
+  private final AtomicReference<Session> session;
+  private final Http http;
+  /** backoff of the first recovery attempt, doubled on each continuous failure */
+  private final long initialBackoffMillis;
+  private final ExecutorService executorService;
+  /** listener and its route, one listener may be added with several routes */
+  private final List<Map.Entry<WeixinMsgListener, MsgRoute>> listeners;
+  private final Set<WeixinStatusListener> statusListeners;
+  private final Set<WeixinPhoneListener> phoneListeners;
+  /** message streams with subscribers */
+  private final Set<MessagePublisher> publishers;
+  private final AtomicBoolean closed;
+  private final LoginProfile loginProfile;
+  private final MsgIdGenerator msgIdGenerator;
+  private volatile CompletableFuture<List<User>> contactListFuture;
+  /** not this, loadContactList holds this lock during the whole download */
+  private final Object contactListRetryLock = new Object();
+  private final AtomicReference<Status> status;
+  /** delay before next synccheck after a wake-up without changes, only used by sync thread */
+  private long idleMillis;
+  /** selector of last no-op wake-up, only used by sync thread */
+  private String idleSelector;
+  /** end of last webwxsync, only used by sync thread */
+  private long lastSyncNanos;
+
+  Weixin(Http http, long initialBackoffMillis) {
     context = new Context();
-    http = new Http();
-    listeners = new HashSet<>();
+    this.http = http;
+    this.initialBackoffMillis = initialBackoffMillis;
+    session = new AtomicReference<>(Session.EMPTY);
+    listeners = new CopyOnWriteArrayList<>();
+    statusListeners = new CopyOnWriteArraySet<>();
+    phoneListeners = new CopyOnWriteArraySet<>();
+    publishers = new CopyOnWriteArraySet<>();
+    closed = new AtomicBoolean(false);
     executorService = Executors.newCachedThreadPool();
-    errorTimes = new AtomicInteger(0);
-    online = false;
+    loginProfile = new LoginProfile();
+    msgIdGenerator = new MsgIdGenerator();
+    status = new AtomicReference<>(Status.OFFLINE);
+    lastSyncNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(COALESCE_MILLIS);
   }
 
   /**
@@ -51,16 +122,38 @@ public class Weixin implements AutoCloseable {
    * @return new io.github.swim2sun.weixin.Weixin instance
    */
   public static Weixin create() {
-    return new Weixin();
+    return new Weixin(new Http(), INITIAL_BACKOFF_MILLIS);
   }
 
   public boolean online() {
-    return online;
+    return status.get() == Status.ONLINE;
   }
 
-  /** close resources */
+  /**
+   * current account status
+   *
+   * @return online, reconnecting or offline
+   */
+  public Status getStatus() {
+    return status.get();
+  }
+
+  /**
+   * latency profile of login, filled while login goes on
+   *
+   * @return login profile
+   */
+  public LoginProfile getLoginProfile() {
+    return loginProfile;
+  }
+
+  /** close resources, complete message streams */
   @Override
   public void close() {
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+    publishers.forEach(MessagePublisher::sourceClosed);
     executorService.shutdown();
   }
 
@@ -72,6 +165,7 @@ public class Weixin implements AutoCloseable {
    * @return qrCode image url
    */
   public String loginQrcode(BiConsumer<Boolean, String> callback) {
+    loginProfile.qrcodeRequested();
     String url = "https://login.weixin.qq.com/jslogin";
     Map<String, String> params = new HashMap<>();
     params.put("appid", "wx782c26e4c19acffb");
@@ -93,52 +187,118 @@ public class Weixin implements AutoCloseable {
           do {
             code = queryLoginResult(uuid);
           } while (code.equals("408") || code.equals("201"));
+          // status goes online when the first synccheck succeeds, not here
           boolean succeed = "200".equals(code);
-          if (succeed) {
-            online = true;
-          }
           callback.accept(succeed, succeed ? "success" : "fail");
         });
     return "https://login.weixin.qq.com/qrcode/" + uuid;
   }
 
   /**
-   * get contact list of current account
+   * current login user
+   *
+   * @return login user, null before login
+   */
+  public User getUser() {
+    return session.get().getUser();
+  }
+
+  /**
+   * get contact list of current account, wait if contact list is still downloading after login
    *
-   * @return contact list
+   * @return unmodifiable contact list
    */
   public List<User> getContactList() {
-    if (Objects.isNull(contactList)) {
+    List<User> contactList = session.get().getContactList();
+    if (Objects.nonNull(contactList)) {
+      return contactList;
+    }
+    CompletableFuture<List<User>> future = contactListFuture;
+    if (Objects.nonNull(future)) {
+      try {
+        return future.join();
+      } catch (CompletionException e) {
+        log.warn("download contact list failed, retry", e.getCause());
+      }
+    }
+    return loadContactList();
+  }
+
+  private synchronized List<User> loadContactList() {
+    if (!session.get().isContactLoaded()) {
+      long start = System.nanoTime();
+      Credentials credentials = context.getCredentials();
       String url =
           String.format(
-              "https://wx2.qq.com/cgi-bin/mmwebwx-bin/webwxgetcontact?lang=zh_CN&pass_ticket=%s&r=%s&seq=0&skey=%s",
-              context.getPassTicket(), System.currentTimeMillis(), context.getSkey());
+              "%s?lang=zh_CN&pass_ticket=%s&r=%s&seq=0&skey=%s",
+              url("webwxgetcontact"),
+              credentials.getPassTicket(), System.currentTimeMillis(), credentials.getSkey());
       String respBody = http.get(url);
       JSONObject resp = new JSONObject(respBody);
       checkState(resp.getJSONObject("BaseResponse").getInt("Ret") == 0, "ret is not equals to 0");
-      setContactList(resp.getJSONArray("MemberList"));
+      List<User> contactList = parseContactList(resp.getJSONArray("MemberList"));
+      installContactList(contactList);
+      loginProfile.record(LoginProfile.Phase.CONTACT_LIST, start);
+      log.info("login profile: {}", loginProfile);
       log.debug(
           "contact:\n {}",
           contactList.stream().map(User::getNickName).collect(Collectors.joining("\n")));
     }
-    return contactList;
+    return session.get().getContactList();
   }
 
   /**
-   * find user by username
+   * install downloaded contact list into session, replay contact changes arrived during download
+   *
+   * @param contactList downloaded contact list
+   */
+  void installContactList(List<User> contactList) {
+    session.updateAndGet(s -> s.withContactList(contactList));
+  }
+
+  /**
+   * find user by username, wait if contact list is still downloading after login. Used by sync
+   * thread, so a failed download never throws here, it is retried in background instead.
    *
    * @param username weixin username
-   * @return user instance
+   * @return user instance, null if not found or contact list not available
    */
   User findUserByUsername(String username) {
-    if (user.getUserName().equals(username)) {
+    Session current = session.get();
+    User user = current.findByUserName(username);
+    if (Objects.nonNull(user) || current.isContactLoaded()) {
       return user;
     }
-    return contactList
-        .stream()
-        .filter(u -> u.getUserName().equals(username))
-        .findAny()
-        .orElse(null);
+    CompletableFuture<List<User>> future = contactListFuture;
+    if (Objects.isNull(future)) {
+      return null;
+    }
+    try {
+      future.join();
+    } catch (CompletionException e) {
+      log.warn("contact list not available, can't find user: {}", username, e.getCause());
+      retryContactListDownload(future);
+      return null;
+    }
+    return session.get().findByUserName(username);
+  }
+
+  /**
+   * download contact list again in background if the given download failed
+   *
+   * @param failed failed download
+   */
+  private void retryContactListDownload(CompletableFuture<List<User>> failed) {
+    synchronized (contactListRetryLock) {
+      if (contactListFuture != failed) {
+        return;
+      }
+      try {
+        contactListFuture = CompletableFuture.supplyAsync(this::loadContactList, executorService);
+      } catch (RejectedExecutionException e) {
+        log.debug("account closed, don't retry contact list download");
+      }
+    }
   }
 
   /**
@@ -148,7 +308,7 @@ public class Weixin implements AutoCloseable {
    * @return user instance
    */
   public User findUserByNickname(String nickName) {
-    return contactList
+    return getContactList()
         .stream()
         .filter(u -> u.getNickName().equals(nickName))
         .findAny()
@@ -161,26 +321,245 @@ public class Weixin implements AutoCloseable {
    * @param msg weixin message
    */
   public void sendMsg(Message msg) {
-    String url =
-        "https://wx2.qq.com/cgi-bin/mmwebwx-bin/webwxsendmsg?lang=zh_CN&pass_ticket="
-            + context.getPassTicket();
+    sendMsg(msg, nextMsgId());
+  }
+
+  private void sendMsg(Message msg, long msgId) {
+    Credentials credentials = context.getCredentials();
+    String url = url("webwxsendmsg") + "?lang=zh_CN&pass_ticket=" + credentials.getPassTicket();
     JSONObject reqBody =
         new JSONObject()
-            .put("BaseRequest", getBaseRequest())
-            .put("Msg", msg.toJson(this))
+            .put("BaseRequest", getBaseRequest(credentials))
+            .put("Msg", msg.toJson(this, msgId))
             .put("Scene", "0");
     String resp = http.postJson(url, reqBody.toString());
     JSONObject respBody = new JSONObject(resp);
     checkState(respBody.getJSONObject("BaseResponse").getInt("Ret") == 0, "ret != 0");
   }
 
+  /**
+   * broadcast text message to receivers, at most 4 messages in flight
+   *
+   * @param receivers message receivers
+   * @param content text content
+   * @return broadcast handle
+   * @see #broadcast(Collection, String, int, BiConsumer)
+   */
+  public Broadcast broadcast(Collection<User> receivers, String content) {
+    return broadcast(receivers, content, DEFAULT_BROADCAST_CONCURRENCY, (u, r) -> {});
+  }
+
+  /**
+   * broadcast text message to receivers asynchronously, failed message is retried for each
+   * receiver, one failed receiver doesn't stop others
+   *
+   * @param receivers message receivers
+   * @param content text content
+   * @param concurrency max messages in flight
+   * @param progress called when one receiver finished, with receiver and its result. Called
+   *     concurrently from several worker threads, so it must be thread safe
+   * @return broadcast handle, used to query progress, wait or cancel
+   */
+  public Broadcast broadcast(
+      Collection<User> receivers,
+      String content,
+      int concurrency,
+      BiConsumer<User, Broadcast.Result> progress) {
+    return broadcast(
+        receivers,
+        concurrency,
+        progress,
+        receiver -> {
+          // one id for every attempt, server drops the retry if a lost response actually succeeded
+          Message msg =
+              Message.builder().type(Message.Type.TEXT).content(content).to(receiver).build();
+          long msgId = nextMsgId();
+          return () -> sendMsg(msg, msgId);
+        });
+  }
+
+  /**
+   * broadcast core
+   *
+   * @param sender create the send action of one receiver, the action is run again on retry
+   */
+  Broadcast broadcast(
+      Collection<User> receivers,
+      int concurrency,
+      BiConsumer<User, Broadcast.Result> progress,
+      Function<User, Runnable> sender) {
+    Preconditions.checkArgument(concurrency > 0, "concurrency must be positive: " + concurrency);
+    List<User> receiverList = new ArrayList<>(receivers);
+    Broadcast broadcast = new Broadcast(receiverList.size(), progress);
+    Semaphore permits = new Semaphore(concurrency);
+    executorService.execute(
+        () -> {
+          for (User receiver : receiverList) {
+            if (broadcast.isCancelled()) {
+              broadcast.complete(receiver, Broadcast.Result.CANCELLED);
+              continue;
+            }
+            try {
+              permits.acquire();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              broadcast.cancel();
+              broadcast.complete(receiver, Broadcast.Result.CANCELLED);
+              continue;
+            }
+            if (broadcast.isCancelled()) {
+              permits.release();
+              broadcast.complete(receiver, Broadcast.Result.CANCELLED);
+              continue;
+            }
+            try {
+              executorService.execute(
+                  () -> {
+                    Broadcast.Result result = Broadcast.Result.FAILED;
+                    try {
+                      if (sendWithRetry(receiver, sender.apply(receiver), broadcast)) {
+                        result = Broadcast.Result.SUCCESS;
+                      }
+                    } catch (Exception e) {
+                      log.error("send message to {} error", receiver.getNickName(), e);
+                    } finally {
+                      permits.release();
+                      broadcast.complete(receiver, result);
+                    }
+                  });
+            } catch (Exception e) {
+              log.error("submit broadcast message error", e);
+              permits.release();
+              broadcast.complete(receiver, Broadcast.Result.FAILED);
+            }
+          }
+        });
+    return broadcast;
+  }
+
+  private boolean sendWithRetry(User receiver, Runnable send, Broadcast broadcast) {
+    for (int times = 1; ; times++) {
+      try {
+        send.run();
+        return true;
+      } catch (Exception e) {
+        if (times >= MAX_SEND_TIMES || broadcast.isCancelled()) {
+          log.warn("send message to {} failed after {} times", receiver.getNickName(), times, e);
+          return false;
+        }
+        log.debug("send message to {} failed, retry", receiver.getNickName(), e);
+      }
+      try {
+        Thread.sleep(SEND_RETRY_BACKOFF_MILLIS * times);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+  }
+
   /**
    * add weixin message listener, system will notify listener on receive message
    *
    * @param msgListener weixin message listener
    */
   public void addMsgListener(WeixinMsgListener msgListener) {
-    listeners.add(msgListener);
+    addMsgListener(msgListener, MsgRoute.ALL);
+  }
+
+  /**
+   * add weixin message listener with route, system will notify listener only on receive message
+   * which matches the route. Listener added with several routes is notified once if any matches.
+   *
+   * @param msgListener weixin message listener
+   * @param route messages the listener cares about
+   */
+  public void addMsgListener(WeixinMsgListener msgListener, MsgRoute route) {
+    listeners.add(new AbstractMap.SimpleImmutableEntry<>(msgListener, route));
+  }
+
+  /**
+   * add account status listener, system will notify listener when account goes online,
+   * reconnecting or offline
+   *
+   * @param statusListener account status listener
+   */
+  public void addStatusListener(WeixinStatusListener statusListener) {
+    statusListeners.add(statusListener);
+  }
+
+  /**
+   * add phone operation listener, system will notify listener when chats are operated on the
+   * phone, e.g. a chat is opened or read
+   *
+   * @param phoneListener phone operation listener
+   */
+  public void addPhoneListener(WeixinPhoneListener phoneListener) {
+    phoneListeners.add(phoneListener);
+  }
+
+  /**
+   * message stream of this account, buffer 256 messages for each subscriber and pause sync check
+   * when any subscriber falls behind
+   *
+   * @return message publisher
+   * @see #messages(int, OverflowStrategy)
+   */
+  public Publisher<Message> messages() {
+    return messages(DEFAULT_STREAM_BUFFER_SIZE, OverflowStrategy.PAUSE);
+  }
+
+  /**
+   * message stream of this account. Subscribers receive messages arriving after they subscribe,
+   * no more than they requested, the rest waits in a bounded buffer of each subscriber. Stream
+   * completes when account is closed.
+   *
+   * @param bufferSize max buffered messages of each subscriber
+   * @param strategy what to do when buffer is full
+   * @return message publisher, compatible with Reactive Streams
+   */
+  public Publisher<Message> messages(int bufferSize, OverflowStrategy strategy) {
+    return new MessagePublisher(
+        executorService, bufferSize, strategy, Collections.singletonList(this));
+  }
+
+  /**
+   * merged message stream of several accounts, stream completes when all accounts are closed
+   *
+   * @param executor executor delivering messages to subscribers, slow subscribers occupy its
+   *     threads
+   * @param bufferSize max buffered messages of each subscriber
+   * @param strategy what to do when buffer is full, PAUSE pauses sync check of all accounts
+   * @param accounts accounts to merge, duplicates are merged once
+   * @return message publisher, compatible with Reactive Streams
+   */
+  public static Publisher<Message> merge(
+      Executor executor, int bufferSize, OverflowStrategy strategy, Weixin... accounts) {
+    Set<Weixin> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+    distinct.addAll(Arrays.asList(accounts));
+    return new MessagePublisher(executor, bufferSize, strategy, new ArrayList<>(distinct));
+  }
+
+  /**
+   * feed messages of this account to the stream, called when stream gets its first subscriber
+   *
+   * @param publisher message stream
+   */
+  void attach(MessagePublisher publisher) {
+    publishers.add(publisher);
+  }
+
+  /**
+   * stop feeding the stream, called when its last subscriber is gone
+   *
+   * @param publisher message stream
+   */
+  void detach(MessagePublisher publisher) {
+    publishers.remove(publisher);
+  }
+
+  boolean isClosed() {
+    return closed.get();
   }
 
   /**
@@ -202,15 +581,25 @@ public class Weixin implements AutoCloseable {
     if ("200".equals(code)) {
       Matcher m = Pattern.compile("ticket=(.+?)&uuid=(.+?)&lang=zh_CN&scan=(.+?)").matcher(resp);
       Preconditions.checkArgument(m.find(), "can't find ticket: " + resp);
+      Matcher hostMatcher = Pattern.compile("redirect_uri=\"https://(.+?)/").matcher(resp);
+      if (hostMatcher.find()) {
+        context.setLoginHost(hostMatcher.group(1));
+      }
       String ticket = m.group(1);
       uuid = m.group(2);
       String scan = m.group(3);
+      loginProfile.confirmed();
       newLoginPage(ticket, uuid, scan);
     }
     return code;
   }
 
+  /**
+   * finish login: webwxnewloginpage, webwxinit, statusnotify, then start sync check right away
+   * while contact list is downloaded concurrently
+   */
   private void newLoginPage(String ticket, String uuid, String scan) {
+    long start = System.nanoTime();
     Map<String, String> params = new HashMap<>();
     params.put("ticket", ticket);
     params.put("uuid", uuid);
@@ -218,168 +607,445 @@ public class Weixin implements AutoCloseable {
     params.put("fun", "new");
     params.put("version", "v2");
     params.put("lang", "zh_CN");
-    String resp = http.get("https://wx2.qq.com/cgi-bin/mmwebwx-bin/webwxnewloginpage", params);
+    String resp = http.get(url("webwxnewloginpage"), params);
     String ret = XmlUtil.get(resp, "ret");
     checkState("0".equals(ret), "ret not equals '0' : " + resp);
-    this.context.setSkey(XmlUtil.get(resp, "skey"));
-    this.context.setSid(XmlUtil.get(resp, "wxsid"));
-    this.context.setUin(XmlUtil.get(resp, "wxuin"));
-    this.context.setPassTicket(XmlUtil.get(resp, "pass_ticket"));
+    installCredentials(
+        new Credentials(
+            XmlUtil.get(resp, "skey"),
+            XmlUtil.get(resp, "wxsid"),
+            XmlUtil.get(resp, "wxuin"),
+            XmlUtil.get(resp, "pass_ticket")));
+    loginProfile.record(LoginProfile.Phase.NEW_LOGIN_PAGE, start);
+    start = System.nanoTime();
     init();
+    loginProfile.record(LoginProfile.Phase.INIT, start);
+    start = System.nanoTime();
+    statusNotify();
+    loginProfile.record(LoginProfile.Phase.STATUS_NOTIFY, start);
+    startSyncCheck();
+    contactListFuture = CompletableFuture.supplyAsync(this::loadContactList, executorService);
+  }
+
+  /**
+   * replace login credentials of this account
+   *
+   * @param credentials credentials of webwxnewloginpage response
+   */
+  void installCredentials(Credentials credentials) {
+    context.setCredentials(credentials);
+  }
+
+  /** start sync check loop on a background thread */
+  void startSyncCheck() {
+    executorService.execute(this::syncCheck);
   }
 
   private void init() {
+    Credentials credentials = context.getCredentials();
     String url =
         String.format(
-            "https://wx2.qq.com/cgi-bin/mmwebwx-bin/webwxinit?pass_ticket=%s&skey=%s&r=%s",
-            context.getPassTicket(), context.getSkey(), System.currentTimeMillis());
-    JSONObject baseRequest = getBaseRequest();
+            "%s?pass_ticket=%s&skey=%s&r=%s",
+            url("webwxinit"),
+            credentials.getPassTicket(), credentials.getSkey(), System.currentTimeMillis());
+    JSONObject baseRequest = getBaseRequest(credentials);
     JSONObject body = new JSONObject().put("BaseRequest", baseRequest);
     String respBody = http.postJson(url, body.toString());
     log.trace("weixin init response: {}", respBody);
     JSONObject resp = new JSONObject(respBody);
     checkState(resp.getJSONObject("BaseResponse").getInt("Ret") == 0, "ret not equals to 0");
-    checkState(resp.getString("SKey").equals(context.getSkey()), "skey changed");
-    this.user = User.parse(resp.getJSONObject("User"));
+    checkState(resp.getString("SKey").equals(credentials.getSkey()), "skey changed");
+    User user = User.parse(resp.getJSONObject("User"));
+    session.updateAndGet(s -> s.withUser(user));
     log.debug("user info: {}", user);
-    updateSyncKey(resp.getJSONObject("SyncKey"));
-    statusNotify();
+    context.updateSyncKey(resp.getJSONObject("SyncKey"));
+  }
+
+  /**
+   * generate message id of this account
+   *
+   * @return unique and increasing message id
+   */
+  long nextMsgId() {
+    return msgIdGenerator.next();
   }
 
-  private JSONObject getBaseRequest() {
+  private String url(String path) {
+    return "https://" + context.getHost() + "/cgi-bin/mmwebwx-bin/" + path;
+  }
+
+  /**
+   * BaseRequest of every api, built from one credentials snapshot
+   *
+   * @param credentials credentials read once by the request
+   * @return BaseRequest object
+   */
+  private JSONObject getBaseRequest(Credentials credentials) {
     return new JSONObject()
-        .put("Uin", context.getUin())
-        .put("Sid", context.getSid())
-        .put("Skey", context.getSkey())
+        .put("Uin", credentials.getUin())
+        .put("Sid", credentials.getSid())
+        .put("Skey", credentials.getSkey())
         .put("DeviceID", context.getDeviceId());
   }
 
   private void statusNotify() {
+    Credentials credentials = context.getCredentials();
     String url =
         String.format(
-            "https://wx2.qq.com/cgi-bin/mmwebwx-bin/webwxstatusnotify?lang=zh_CN&pass_ticket=%s",
-            context.getPassTicket());
+            "%s?lang=zh_CN&pass_ticket=%s", url("webwxstatusnotify"), credentials.getPassTicket());
     JSONObject reqBody =
         new JSONObject()
-            .put("BaseRequest", getBaseRequest())
+            .put("BaseRequest", getBaseRequest(credentials))
             .put("Code", 3)
-            .put("FromUserName", user.getUserName())
-            .put("ToUserName", user.getUserName())
+            .put("FromUserName", getUser().getUserName())
+            .put("ToUserName", getUser().getUserName())
+            // statusnotify takes 13 digits millis, not a 17 digits message id
             .put("ClientMsgId", System.currentTimeMillis());
     String respBody = http.postJson(url, reqBody.toString());
     checkState(
         new JSONObject(respBody).getJSONObject("BaseResponse").getInt("Ret") == 0, "ret != 0");
-    getContactList();
-    executorService.execute(this::syncCheck);
   }
 
-  private void setContactList(JSONArray jsonArray) {
+  private List<User> parseContactList(JSONArray jsonArray) {
     int len = jsonArray.length();
-    this.contactList = new ArrayList<>(len);
+    List<User> contactList = new ArrayList<>(len);
     for (int i = 0; i < len; i++) {
       contactList.add(User.parse(jsonArray.getJSONObject(i)));
     }
     log.info("find {} user in contact", len);
+    return contactList;
   }
 
+  /**
+   * sync check loop, on failure retry with exponential backoff, redo webwxinit to refresh SyncKey
+   * and fail over between wx / wx2 hosts, give up after {@link #MAX_RETRY_TIMES} continuous
+   * failures. Interrupted sync thread goes offline without recovering.
+   */
   private void syncCheck() {
-    String url = "https://webpush.wx2.qq.com/cgi-bin/mmwebwx-bin/synccheck";
-    Pattern pattern = Pattern.compile("\\{retcode:\"(.+?)\",selector:\"(.+?)\"\\}");
+    int failures = 0;
+    while (!executorService.isShutdown()) {
+      boolean healthy;
+      try {
+        healthy = pollSyncCheck();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        log.info("sync check interrupted");
+        changeStatus(Status.OFFLINE);
+        return;
+      } catch (Exception e) {
+        log.error("sync check error", e);
+        healthy = false;
+      }
+      if (healthy) {
+        failures = 0;
+        changeStatus(Status.ONLINE);
+        continue;
+      }
+      if (++failures > MAX_RETRY_TIMES) {
+        log.warn("give up sync check");
+        changeStatus(Status.OFFLINE);
+        return;
+      }
+      changeStatus(Status.RECONNECTING);
+      if (!recover(failures) && Thread.currentThread().isInterrupted()) {
+        changeStatus(Status.OFFLINE);
+        return;
+      }
+    }
+  }
+
+  /**
+   * request synccheck once
+   *
+   * @return false if session is broken and need to recover
+   */
+  private boolean pollSyncCheck() throws InterruptedException {
+    awaitDemand();
+    Credentials credentials = context.getCredentials();
+    String url = "https://webpush." + context.getHost() + "/cgi-bin/mmwebwx-bin/synccheck";
+    Map<String, String> params = new HashMap<>();
+    params.put("r", "" + System.currentTimeMillis());
+    params.put("skey", credentials.getSkey());
+    params.put("sid", credentials.getSid());
+    params.put("uin", credentials.getUin());
+    params.put("deviceid", context.getDeviceId());
+    params.put("synckey", context.getSyncKey().getQuery());
+    params.put("_", "" + System.currentTimeMillis());
+    String resp = http.get(url, params);
+    Matcher matcher = SYNC_CHECK_PATTERN.matcher(resp);
+    checkState(matcher.find(), "can't find ret code: " + resp);
+    loginProfile.mark(LoginProfile.Phase.FIRST_SYNC_CHECK);
+    String retCode = matcher.group(1);
+    String selector = matcher.group(2);
+    if (retCode.equals("1100")) {
+      log.info("已下线");
+      return false;
+    }
+    if (retCode.equals("1101")) {
+      log.warn("该账号在其他地方登录或会话已失效");
+      return false;
+    }
+    if (retCode.equals("1102")) {
+      log.warn("该账号手机上主动退出了");
+      return false;
+    }
+    checkState(retCode.equals("0"), "ret code not valid: " + retCode);
+    if (!selector.equals("0")) {
+      route(selector);
+    }
+    return true;
+  }
+
+  /** pause sync check while any message stream subscriber is saturated */
+  private void awaitDemand() throws InterruptedException {
+    boolean paused = false;
+    while (!executorService.isShutdown()
+        && publishers.stream().anyMatch(MessagePublisher::isSaturated)) {
+      if (!paused) {
+        log.debug("message subscribers saturated, pause sync check");
+        paused = true;
+      }
+      Thread.sleep(PAUSE_CHECK_MILLIS);
+    }
+    if (paused) {
+      log.debug("message subscribers caught up, resume sync check");
+    }
+  }
+
+  /**
+   * route one synccheck wake-up. Selector: 2 - new message, 4 - contact changed, 6 - message and
+   * contact changed, 7 - operation on phone, other values are handled the same way. Each part of
+   * the webwxsync response goes to its handler: messages to message listeners and streams, contact
+   * changes to the session, phone operations to phone listeners.
+   *
+   * <p>A wake-up right after the previous sync waits until {@link #COALESCE_MILLIS} have passed, so
+   * back-to-back wake-ups pile up on the server and are drained by one sync (repeated only while
+   * server reports ContinueFlag). The first wake-up after a quiet period syncs at once.
+   *
+   * <p>If the same selector keeps waking up with nothing (e.g. selector 3), next synccheck is
+   * delayed with growing idle time capped at {@link #MAX_IDLE_MILLIS}, any real change or another
+   * selector resets it, so spinning accounts poll less often and real messages wait little.
+   *
+   * @param selector synccheck selector
+   */
+  private void route(String selector) throws InterruptedException {
+    long coalesce =
+        COALESCE_MILLIS - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastSyncNanos);
+    if (coalesce > 0) {
+      Thread.sleep(coalesce);
+    }
+    boolean changed = false;
     try {
-      while (true) {
-        Map<String, String> params = new HashMap<>();
-        params.put("r", "" + System.currentTimeMillis());
-        params.put("skey", context.getSkey());
-        params.put("sid", context.getSid());
-        params.put("uin", context.getUin());
-        params.put("deviceid", context.getDeviceId());
-        params.put("synckey", context.getSyncKeyStr());
-        params.put("_", "" + System.currentTimeMillis());
-        String resp = http.get(url, params);
-        Matcher matcher = pattern.matcher(resp);
-        checkState(matcher.find(), "can't find ret code: " + resp);
-        String retCode = matcher.group(1);
-        String selector = matcher.group(2);
-        if (retCode.equals("1100")) {
-          log.info("已下线");
-          online = false;
-          break;
-        }
-        if (retCode.equals("1102")) {
-          log.warn("该账号手机上主动退出了");
-          online = false;
+      for (int round = 0; round < MAX_SYNC_ROUNDS; round++) {
+        JSONObject resp = sync();
+        changed |= handleMessages(resp);
+        changed |= handleContacts(resp);
+        if (resp.optInt("ContinueFlag", 0) == 0) {
           break;
         }
-        checkState(retCode.equals("0"), "ret code not valid: " + retCode);
-        if (selector.equals("2")) {
-          sync();
-        }
-        if (selector.equals("3")) {
-          log.warn("selector equals 3 !");
-          Thread.sleep(60 * 1000);
-        }
-        if (errorTimes.intValue() > 0) {
-          errorTimes.set(0);
-        }
       }
+    } finally {
+      lastSyncNanos = System.nanoTime();
+    }
+    if (changed) {
+      idleMillis = 0;
+      idleSelector = null;
+      return;
+    }
+    if (!selector.equals(idleSelector)) {
+      idleSelector = selector;
+      idleMillis = 0;
+      return;
+    }
+    idleMillis = idleMillis == 0 ? MIN_IDLE_MILLIS : Math.min(idleMillis * 2, MAX_IDLE_MILLIS);
+    log.debug("selector {} brings nothing, wait {} ms", selector, idleMillis);
+    Thread.sleep(idleMillis);
+  }
+
+  /**
+   * try to recover session: wait with exponential backoff, fail over host after the first failed
+   * attempt, then redo webwxinit which refreshes SyncKey. Status goes back to online only after
+   * next synccheck succeeds.
+   *
+   * @param failures continuous failure times, start from 1
+   * @return whether webwxinit succeeded
+   */
+  private boolean recover(int failures) {
+    long backoff = Math.min(initialBackoffMillis << (failures - 1), MAX_BACKOFF_MILLIS);
+    log.info("reconnect after {} ms, attempt {}/{}", backoff, failures, MAX_RETRY_TIMES);
+    try {
+      Thread.sleep(backoff);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    if (failures > 1) {
+      log.info("fail over to host {}", context.switchHost());
+    }
+    try {
+      init();
     } catch (Exception e) {
-      log.error("sync check error", e);
-      int currentTimes = errorTimes.incrementAndGet();
-      if (currentTimes >= 5) {
-        log.warn("give up sync check");
-        online = false;
-        return;
-      }
-      syncCheck();
+      log.warn("re-init failed", e);
+      return false;
     }
+    return true;
   }
 
-  private void sync() {
+  private void changeStatus(Status newStatus) {
+    Status oldStatus = status.getAndSet(newStatus);
+    if (oldStatus == newStatus) {
+      return;
+    }
+    log.info("status changed: {} -> {}", oldStatus, newStatus);
+    statusListeners.forEach(
+        statusListener -> {
+          try {
+            statusListener.onStatusChange(newStatus);
+          } catch (Exception e) {
+            log.error("status listener has error", e);
+          }
+        });
+  }
+
+  private JSONObject sync() {
+    Credentials credentials = context.getCredentials();
     String url =
         String.format(
-            "https://wx2.qq.com/cgi-bin/mmwebwx-bin/webwxsync?sid=%s&skey=%s&lang=zh_CN&pass_ticket=%s",
-            context.getSid(), context.getSkey(), context.getPassTicket());
-    JSONObject reqBody =
-        new JSONObject()
-            .put("BaseRequest", getBaseRequest())
-            .put("SyncKey", context.getSyncKey())
-            .put("rr", ~System.currentTimeMillis());
-    String respBody = http.postJson(url, reqBody.toString());
+            "%s?sid=%s&skey=%s&lang=zh_CN&pass_ticket=%s",
+            url("webwxsync"),
+            credentials.getSid(), credentials.getSkey(), credentials.getPassTicket());
+    // SyncKey is pre-rendered by context, write it straight into the body
+    String reqBody =
+        "{\"BaseRequest\":"
+            + getBaseRequest(credentials)
+            + ",\"SyncKey\":"
+            + context.getSyncKey().getJson()
+            + ",\"rr\":"
+            + ~System.currentTimeMillis()
+            + "}";
+    String respBody = http.postJson(url, reqBody);
     JSONObject resp = new JSONObject(respBody);
     checkState(resp.getJSONObject("BaseResponse").getInt("Ret") == 0, "ret != 0");
-    updateSyncKey(resp.getJSONObject("SyncKey"));
-    if (resp.getInt("AddMsgCount") > 0) {
-      JSONArray msgObjArr = resp.getJSONArray("AddMsgList");
-      for (int i = 0; i < msgObjArr.length(); i++) {
-        Message message = Message.of(this, msgObjArr.getJSONObject(i));
-        log.info("receive: {}", message);
-        if (message.getType() == null) {
-          continue;
+    context.updateSyncKey(resp.getJSONObject("SyncKey"));
+    return resp;
+  }
+
+  /**
+   * handle AddMsgList of webwxsync response
+   *
+   * @param resp webwxsync response
+   * @return whether there is any message
+   */
+  private boolean handleMessages(JSONObject resp) {
+    if (resp.optInt("AddMsgCount", 0) == 0) {
+      return false;
+    }
+    JSONArray msgObjArr = resp.getJSONArray("AddMsgList");
+    for (int i = 0; i < msgObjArr.length(); i++) {
+      JSONObject msgObj = msgObjArr.getJSONObject(i);
+      if (msgObj.getInt("MsgType") == MSG_TYPE_STATUS_NOTIFY) {
+        handlePhoneOperation(msgObj);
+        continue;
+      }
+      if (Objects.isNull(Message.Type.of(msgObj.getInt("MsgType")))) {
+        log.debug("ignore message type: {}", msgObj.getInt("MsgType"));
+        continue;
+      }
+      loginProfile.mark(LoginProfile.Phase.FIRST_MESSAGE);
+      List<WeixinMsgListener> targets = new ArrayList<>(listeners.size());
+      for (Map.Entry<WeixinMsgListener, MsgRoute> entry : listeners) {
+        if (!targets.contains(entry.getKey()) && entry.getValue().matches(msgObj)) {
+          targets.add(entry.getKey());
         }
-        listeners
-            .parallelStream()
-            .forEach(
-                msgListener -> {
-                  try {
-                    msgListener.onReceiveMessage(message);
-                  } catch (Exception e) {
-                    log.error("msg listener has error", e);
-                  }
-                });
+      }
+      // streams are attached only while they have subscribers
+      if (targets.isEmpty() && publishers.isEmpty()) {
+        continue;
+      }
+      Message message = Message.of(this, msgObj);
+      log.info("receive: {}", message);
+      publishers.forEach(publisher -> publisher.offer(message, closed::get));
+      targets
+          .parallelStream()
+          .forEach(
+              msgListener -> {
+                try {
+                  msgListener.onReceiveMessage(message);
+                } catch (Exception e) {
+                  log.error("msg listener has error", e);
+                }
+              });
+      if (loginProfile.mark(LoginProfile.Phase.FIRST_DELIVERY)) {
+        log.info("login profile: {}", loginProfile);
       }
     }
+    return true;
   }
 
-  private void updateSyncKey(JSONObject syncKey) {
-    JSONArray list = syncKey.getJSONArray("List");
-    int len = list.length();
-    StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < len; i++) {
-      JSONObject pair = list.getJSONObject(i);
-      sb.append(pair.getInt("Key")).append("_").append(pair.getInt("Val")).append("|");
+  /**
+   * notify phone listeners of one status notify message
+   *
+   * @param msgObj message of MsgType 51
+   */
+  private void handlePhoneOperation(JSONObject msgObj) {
+    int code = msgObj.optInt("StatusNotifyCode", 0);
+    String userNames = msgObj.optString("StatusNotifyUserName", "");
+    log.debug("phone side operation {}: {}", code, userNames);
+    if (phoneListeners.isEmpty()) {
+      return;
     }
-    sb.deleteCharAt(sb.length() - 1);
-    this.context.setSyncKeyStr(sb.toString());
-    this.context.setSyncKey(syncKey);
+    List<String> operated =
+        Arrays.stream(userNames.split(","))
+            .filter(userName -> !userName.isEmpty())
+            .collect(Collectors.toList());
+    phoneListeners.forEach(
+        phoneListener -> {
+          try {
+            phoneListener.onPhoneOperation(code, operated);
+          } catch (Exception e) {
+            log.error("phone listener has error", e);
+          }
+        });
+  }
+
+  /**
+   * handle ModContactList and DelContactList of webwxsync response
+   *
+   * @param resp webwxsync response
+   * @return whether any contact changed
+   */
+  boolean handleContacts(JSONObject resp) {
+    int modCount = resp.optInt("ModContactCount", 0);
+    int delCount = resp.optInt("DelContactCount", 0);
+    if (modCount == 0 && delCount == 0) {
+      return false;
+    }
+    List<User> modified = new ArrayList<>(modCount);
+    if (modCount > 0) {
+      JSONArray modList = resp.getJSONArray("ModContactList");
+      for (int i = 0; i < modList.length(); i++) {
+        modified.add(User.parse(modList.getJSONObject(i)));
+      }
+    }
+    List<String> deleted = new ArrayList<>(delCount);
+    if (delCount > 0) {
+      JSONArray delList = resp.getJSONArray("DelContactList");
+      for (int i = 0; i < delList.length(); i++) {
+        deleted.add(delList.getJSONObject(i).getString("UserName"));
+      }
+    }
+    session.updateAndGet(s -> s.withContactChanges(modified, deleted));
+    log.info("contact changed, modified: {}, deleted: {}", modCount, delCount);
+    return true;
+  }
+
+  /** account status */
+  public enum Status {
+    /** logged in and receiving messages */
+    ONLINE,
+    /** sync check failed, trying to recover session */
+    RECONNECTING,
+    /** not logged in, logged out or gave up recovering */
+    OFFLINE
   }
 }
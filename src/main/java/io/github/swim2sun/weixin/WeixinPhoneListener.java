@@ -0,0 +1,22 @@
+package io.github.swim2sun.weixin;
+
+import java.util.List;
+
+/**
+ * Weixin Phone Operation Listener
+ *
+ * @author swim2sun
+ * @version 1.0 2018-09-16.
+ */
+@FunctionalInterface
+public interface WeixinPhoneListener {
+
+    /**
+     * on chats operated on phone (synccheck selector 7), e.g. chat opened or chat list synced
+     *
+     * @param code StatusNotifyCode, 2 - chat opened, 4 - chat list synced, 5 - chat closed
+     * @param userNames usernames of operated chats
+     */
+    void onPhoneOperation(int code, List<String> userNames);
+
+}
@@ -0,0 +1,19 @@
+package io.github.swim2sun.weixin;
+
+/**
+ * Weixin Status Listener
+ *
+ * @author swim2sun
+ * @version 1.0 2018-09-03.
+ */
+@FunctionalInterface
+public interface WeixinStatusListener {
+
+    /**
+     * on account status changed, e.g. online -&gt; reconnecting -&gt; online
+     *
+     * @param status new status
+     */
+    void onStatusChange(Weixin.Status status);
+
+}
@@ -0,0 +1,120 @@
+package io.github.swim2sun.weixin;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Broadcast Tester, send action is replaced so no request is sent.
+ *
+ * @author swim2sun
+ * @version 1.0 2018-09-05.
+ */
+public class BroadcastTest {
+
+  @Test
+  public void testConcurrencyLimit() throws InterruptedException {
+    AtomicInteger inFlight = new AtomicInteger(0);
+    AtomicInteger maxInFlight = new AtomicInteger(0);
+    try (Weixin weixin = Weixin.create()) {
+      Broadcast broadcast =
+          weixin.broadcast(
+              receivers(20),
+              3,
+              (u, r) -> {},
+              receiver ->
+                  () -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    try {
+                      Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                      Thread.currentThread().interrupt();
+                    }
+                    inFlight.decrementAndGet();
+                  });
+      assertTrue(broadcast.await(10, TimeUnit.SECONDS));
+      assertEquals(20, broadcast.getSucceeded());
+      assertTrue(maxInFlight.get() <= 3, "in flight: " + maxInFlight.get());
+      assertTrue(maxInFlight.get() > 1, "in flight: " + maxInFlight.get());
+    }
+  }
+
+  @Test
+  public void testRetryReusesSendAction() throws InterruptedException {
+    Map<String, AtomicInteger> created = new ConcurrentHashMap<>();
+    Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+    try (Weixin weixin = Weixin.create()) {
+      Broadcast broadcast =
+          weixin.broadcast(
+              receivers(2),
+              2,
+              (u, r) -> {},
+              receiver -> {
+                String name = receiver.getUserName();
+                created.computeIfAbsent(name, k -> new AtomicInteger()).incrementAndGet();
+                return () -> {
+                  int times =
+                      attempts.computeIfAbsent(name, k -> new AtomicInteger()).incrementAndGet();
+                  if (name.equals("@0") && times == 1) {
+                    throw new IllegalStateException("ret != 0");
+                  }
+                  if (name.equals("@1")) {
+                    throw new IllegalStateException("ret != 0");
+                  }
+                };
+              });
+      assertTrue(broadcast.await(30, TimeUnit.SECONDS));
+      assertEquals(1, broadcast.getSucceeded());
+      assertEquals(1, broadcast.getFailed());
+      assertEquals(2, attempts.get("@0").get());
+      assertEquals(3, attempts.get("@1").get());
+      assertEquals(1, created.get("@0").get());
+      assertEquals(1, created.get("@1").get());
+    }
+  }
+
+  @Test
+  public void testCancel() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    try (Weixin weixin = Weixin.create()) {
+      Broadcast broadcast =
+          weixin.broadcast(
+              receivers(10),
+              1,
+              (u, r) -> {},
+              receiver ->
+                  () -> {
+                    started.countDown();
+                    try {
+                      release.await();
+                    } catch (InterruptedException e) {
+                      Thread.currentThread().interrupt();
+                    }
+                  });
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+      broadcast.cancel();
+      release.countDown();
+      assertTrue(broadcast.await(5, TimeUnit.SECONDS));
+      assertEquals(1, broadcast.getSucceeded());
+      assertEquals(9, broadcast.getCancelled());
+    }
+  }
+
+  private static List<User> receivers(int count) {
+    List<User> receivers = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      receivers.add(User.builder().userName("@" + i).nickName("user" + i).build());
+    }
+    return receivers;
+  }
+}
@@ -0,0 +1,211 @@
+package io.github.swim2sun.weixin;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * MessagePublisher Tester.
+ *
+ * @author swim2sun
+ * @version 1.0 2018-09-14.
+ */
+public class MessagePublisherTest {
+  private static final BooleanSupplier OPEN = () -> false;
+
+  @Test
+  public void testDeliverOnDemand() throws InterruptedException {
+    Weixin account = Weixin.create();
+    MessagePublisher publisher = publisher(account, 8, OverflowStrategy.PAUSE);
+    TestSubscriber subscriber = new TestSubscriber();
+    publisher.subscribe(subscriber);
+    publisher.offer(message("a"), OPEN);
+    publisher.offer(message("b"), OPEN);
+    assertEquals(0, subscriber.contents().size());
+    subscriber.subscription.request(1);
+    assertEquals("a", String.join(",", subscriber.contents()));
+    subscriber.subscription.request(5);
+    account.close();
+    assertTrue(subscriber.completed.await(1, TimeUnit.SECONDS));
+    assertEquals("a,b", String.join(",", subscriber.contents()));
+  }
+
+  @Test
+  public void testOverflow() {
+    try (Weixin account = Weixin.create()) {
+      MessagePublisher drop = publisher(account, 2, OverflowStrategy.DROP);
+      MessagePublisher latest = publisher(account, 2, OverflowStrategy.LATEST);
+      TestSubscriber dropSubscriber = new TestSubscriber();
+      TestSubscriber latestSubscriber = new TestSubscriber();
+      drop.subscribe(dropSubscriber);
+      latest.subscribe(latestSubscriber);
+      for (String content : new String[] {"a", "b", "c"}) {
+        drop.offer(message(content), OPEN);
+        latest.offer(message(content), OPEN);
+      }
+      assertFalse(drop.isSaturated());
+      dropSubscriber.subscription.request(Long.MAX_VALUE);
+      latestSubscriber.subscription.request(Long.MAX_VALUE);
+      assertEquals("a,b", String.join(",", dropSubscriber.contents()));
+      assertEquals("b,c", String.join(",", latestSubscriber.contents()));
+    }
+  }
+
+  @Test
+  public void testPauseWhenSaturated() {
+    try (Weixin account = Weixin.create()) {
+      MessagePublisher publisher = publisher(account, 1, OverflowStrategy.PAUSE);
+      TestSubscriber subscriber = new TestSubscriber();
+      publisher.subscribe(subscriber);
+      publisher.offer(message("a"), OPEN);
+      assertTrue(publisher.isSaturated());
+      subscriber.subscription.request(1);
+      assertFalse(publisher.isSaturated());
+      subscriber.subscription.cancel();
+      publisher.offer(message("b"), OPEN);
+      assertEquals(1, subscriber.contents().size());
+    }
+  }
+
+  @Test
+  public void testPausedOfferStopsOnClose() throws InterruptedException {
+    Weixin account = Weixin.create();
+    MessagePublisher publisher = publisher(account, 1, OverflowStrategy.PAUSE);
+    TestSubscriber subscriber = new TestSubscriber();
+    publisher.subscribe(subscriber);
+    publisher.offer(message("a"), OPEN);
+    Thread offering = new Thread(() -> publisher.offer(message("b"), OPEN));
+    offering.start();
+    account.close();
+    offering.join(TimeUnit.SECONDS.toMillis(1));
+    assertFalse(offering.isAlive());
+    assertTrue(publisher.hasSubscribers());
+    subscriber.subscription.request(Long.MAX_VALUE);
+    assertTrue(subscriber.completed.await(1, TimeUnit.SECONDS));
+    assertEquals("a", String.join(",", subscriber.contents()));
+    assertFalse(publisher.hasSubscribers());
+  }
+
+  @Test
+  public void testPausedOfferStopsOnAbort() throws InterruptedException {
+    try (Weixin account = Weixin.create()) {
+      MessagePublisher publisher = publisher(account, 1, OverflowStrategy.PAUSE);
+      publisher.subscribe(new TestSubscriber());
+      publisher.offer(message("a"), OPEN);
+      Thread offering = new Thread(() -> publisher.offer(message("b"), () -> true));
+      offering.start();
+      offering.join(TimeUnit.SECONDS.toMillis(1));
+      assertFalse(offering.isAlive());
+    }
+  }
+
+  @Test
+  public void testSubscribeAfterShutdown() throws InterruptedException {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    executor.shutdown();
+    Weixin account = Weixin.create();
+    account.close();
+    MessagePublisher publisher =
+        new MessagePublisher(
+            executor, 8, OverflowStrategy.PAUSE, Collections.singletonList(account));
+    TestSubscriber subscriber = new TestSubscriber();
+    publisher.subscribe(subscriber);
+    assertTrue(subscriber.completed.await(1, TimeUnit.SECONDS));
+    assertFalse(publisher.hasSubscribers());
+  }
+
+  @Test
+  public void testResubscribeAfterCancel() throws InterruptedException {
+    Weixin account = Weixin.create();
+    MessagePublisher publisher = publisher(account, 8, OverflowStrategy.PAUSE);
+    TestSubscriber first = new TestSubscriber();
+    publisher.subscribe(first);
+    first.subscription.cancel();
+    assertFalse(publisher.hasSubscribers());
+    TestSubscriber second = new TestSubscriber();
+    publisher.subscribe(second);
+    second.subscription.request(1);
+    publisher.offer(message("a"), OPEN);
+    account.close();
+    assertTrue(second.completed.await(1, TimeUnit.SECONDS));
+    assertEquals("a", String.join(",", second.contents()));
+    assertEquals(1, first.completed.getCount());
+  }
+
+  @Test
+  public void testInvalidRequest() {
+    try (Weixin account = Weixin.create()) {
+      MessagePublisher publisher = publisher(account, 8, OverflowStrategy.PAUSE);
+      TestSubscriber cancelled = new TestSubscriber();
+      publisher.subscribe(cancelled);
+      cancelled.subscription.cancel();
+      cancelled.subscription.request(0);
+      assertNull(cancelled.error);
+
+      TestSubscriber invalid = new TestSubscriber();
+      publisher.subscribe(invalid);
+      invalid.subscription.request(0);
+      assertTrue(invalid.error instanceof IllegalArgumentException);
+      assertFalse(publisher.hasSubscribers());
+      publisher.offer(message("a"), OPEN);
+      invalid.subscription.request(1);
+      assertEquals(0, invalid.contents().size());
+    }
+  }
+
+  private static MessagePublisher publisher(
+      Weixin account, int bufferSize, OverflowStrategy strategy) {
+    return new MessagePublisher(
+        Runnable::run, bufferSize, strategy, Collections.singletonList(account));
+  }
+
+  private static Message message(String content) {
+    return Message.builder().type(Message.Type.TEXT).content(content).build();
+  }
+
+  private static class TestSubscriber implements Subscriber<Message> {
+    private final List<Message> received = new CopyOnWriteArrayList<>();
+    private final CountDownLatch completed = new CountDownLatch(1);
+    private Subscription subscription;
+    private volatile Throwable error;
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(Message message) {
+      received.add(message);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+    }
+
+    @Override
+    public void onComplete() {
+      completed.countDown();
+    }
+
+    List<String> contents() {
+      return received.stream().map(Message::getContent).collect(Collectors.toList());
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package io.github.swim2sun.weixin;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * MsgIdGenerator Tester.
+ *
+ * @author swim2sun
+ * @version 1.0 2018-09-10.
+ */
+public class MsgIdGeneratorTest {
+  private static final int THREADS = 8;
+  private static final int IDS_PER_THREAD = 1_000_000;
+  private static final int MIN_IDS_PER_MILLI = 1000;
+
+  @Test
+  public void testConcurrentUnique() throws Exception {
+    MsgIdGenerator generator = new MsgIdGenerator(3);
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<long[]>> futures = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      futures.add(
+          executor.submit(
+              () -> {
+                long[] ids = new long[IDS_PER_THREAD];
+                start.await();
+                for (int i = 0; i < IDS_PER_THREAD; i++) {
+                  ids[i] = generator.next();
+                }
+                return ids;
+              }));
+    }
+    long begin = System.nanoTime();
+    start.countDown();
+    long[] all = new long[THREADS * IDS_PER_THREAD];
+    for (int t = 0; t < THREADS; t++) {
+      long[] ids = futures.get(t).get();
+      for (int i = 1; i < ids.length; i++) {
+        assertTrue(ids[i] > ids[i - 1], "ids of one thread must increase");
+      }
+      System.arraycopy(ids, 0, all, t * IDS_PER_THREAD, IDS_PER_THREAD);
+    }
+    long elapsedMillis = (System.nanoTime() - begin) / 1_000_000;
+    executor.shutdown();
+    // at least 1 million ids per second, far below what the CAS loop reaches
+    assertTrue(
+        elapsedMillis < all.length / MIN_IDS_PER_MILLI,
+        all.length + " ids generated in " + elapsedMillis + " ms");
+    Arrays.sort(all);
+    for (int i = 1; i < all.length; i++) {
+      assertNotEquals(all[i - 1], all[i], "duplicate id");
+    }
+  }
+
+  @Test
+  public void testFormat() {
+    long id = new MsgIdGenerator(7).next();
+    String str = String.valueOf(id);
+    assertEquals(17, str.length());
+    assertEquals('7', str.charAt(13));
+    assertTrue(Math.abs(Long.parseLong(str.substring(0, 13)) - System.currentTimeMillis()) < 1000);
+  }
+
+  @Test
+  public void testDifferentNodes() {
+    MsgIdGenerator a = new MsgIdGenerator(1);
+    MsgIdGenerator b = new MsgIdGenerator(2);
+    for (int i = 0; i < 10_000; i++) {
+      assertNotEquals(a.next(), b.next());
+    }
+  }
+}
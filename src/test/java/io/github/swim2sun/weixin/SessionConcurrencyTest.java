@@ -0,0 +1,204 @@
+package io.github.swim2sun.weixin;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stress test of snapshot swapping, in the way of jcstress: writer actors keep changing state the
+ * way the login and sync threads do, reader actors check every observed state is consistent.
+ *
+ * @author swim2sun
+ * @version 1.0 2018-09-06.
+ */
+public class SessionConcurrencyTest {
+  private static final int READERS = 4;
+  private static final int ITERATIONS = 200_000;
+
+  @Test
+  public void testSnapshotIsConsistent() throws Exception {
+    User me = User.builder().userName("@me").nickName("me").build();
+    List<User> contacts = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      contacts.add(User.builder().userName("@" + i).nickName("user" + i).build());
+    }
+    AtomicReference<Session> session = new AtomicReference<>(Session.EMPTY);
+    session.updateAndGet(s -> s.withUser(me));
+    session.updateAndGet(s -> s.withContactList(contacts));
+
+    ExecutorService executor = Executors.newFixedThreadPool(READERS + 1);
+    CountDownLatch start = new CountDownLatch(1);
+    AtomicBoolean writing = new AtomicBoolean(true);
+    List<Future<?>> futures = new ArrayList<>();
+    futures.add(
+        executor.submit(
+            () -> {
+              start.await();
+              for (int i = 0; i < ITERATIONS; i++) {
+                User modified =
+                    User.builder().userName("@" + (i % 100)).nickName("modified" + i).build();
+                session.updateAndGet(
+                    s ->
+                        s.withContactChanges(
+                            Collections.singletonList(modified), Collections.emptyList()));
+              }
+              writing.set(false);
+              return null;
+            }));
+    for (int r = 0; r < READERS; r++) {
+      futures.add(
+          executor.submit(
+              () -> {
+                start.await();
+                while (writing.get()) {
+                  Session snapshot = session.get();
+                  assertSame(me, snapshot.findByUserName("@me"));
+                  List<User> list = snapshot.getContactList();
+                  assertEquals(100, list.size());
+                  for (User u : list) {
+                    assertSame(u, snapshot.findByUserName(u.getUserName()));
+                  }
+                }
+                return null;
+              }));
+    }
+    start.countDown();
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    assertEquals(100, session.get().getContactList().size());
+  }
+
+  @Test
+  public void testWeixinReadsWhileSyncWrites() throws Exception {
+    List<User> contacts = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      contacts.add(User.builder().userName("@" + i).nickName("user" + i).build());
+    }
+    Message message =
+        Message.builder()
+            .type(Message.Type.TEXT)
+            .content("hi")
+            .from(User.builder().userName("@me").build())
+            .to(contacts.get(0))
+            .build();
+    try (Weixin weixin = new Weixin(new SendMsgHttp(), 1)) {
+      weixin.installCredentials(new Credentials("s0", "i0", "u0", "p0"));
+      weixin.installContactList(contacts);
+      ExecutorService executor = Executors.newFixedThreadPool(READERS + 2);
+      CountDownLatch start = new CountDownLatch(1);
+      AtomicBoolean writing = new AtomicBoolean(true);
+      AtomicInteger writers = new AtomicInteger(2);
+      List<Future<?>> futures = new ArrayList<>();
+      // sync thread actor: contact changes of webwxsync
+      futures.add(
+          executor.submit(
+              () -> {
+                start.await();
+                for (int i = 0; i < 2_000; i++) {
+                  JSONObject contact =
+                      new JSONObject()
+                          .put("Uin", 0)
+                          .put("UserName", "@" + (i % 100))
+                          .put("NickName", "modified" + i)
+                          .put("HeadImgUrl", "");
+                  weixin.handleContacts(
+                      new JSONObject()
+                          .put("ModContactCount", 1)
+                          .put("ModContactList", new JSONArray().put(contact)));
+                }
+                if (writers.decrementAndGet() == 0) {
+                  writing.set(false);
+                }
+                return null;
+              }));
+      // login thread actor: credentials of a new login
+      futures.add(
+          executor.submit(
+              () -> {
+                start.await();
+                for (int i = 1; i <= ITERATIONS; i++) {
+                  weixin.installCredentials(
+                      new Credentials("s" + i, "i" + i, "u" + i, "p" + i));
+                }
+                if (writers.decrementAndGet() == 0) {
+                  writing.set(false);
+                }
+                return null;
+              }));
+      for (int r = 0; r < READERS; r++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  while (writing.get()) {
+                    for (int k = 0; k < 100; k += 7) {
+                      assertNotNull(weixin.findUserByUsername("@" + k));
+                    }
+                    assertEquals(100, weixin.getContactList().size());
+                    weixin.sendMsg(message);
+                  }
+                  return null;
+                }));
+      }
+      start.countDown();
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testChangesBeforeContactLoaded() {
+    User a = User.builder().userName("@a").nickName("a").build();
+    User b = User.builder().userName("@b").nickName("b").build();
+    User newA = User.builder().userName("@a").nickName("new a").build();
+    User c = User.builder().userName("@c").nickName("c").build();
+    Session session = Session.EMPTY.withUser(User.builder().userName("@me").build());
+    session =
+        session.withContactChanges(
+            Collections.singletonList(newA), Collections.singletonList("@b"));
+    session = session.withContactChanges(Collections.singletonList(c), Collections.emptyList());
+    assertNull(session.getContactList());
+    assertNotNull(session.findByUserName("@me"));
+
+    session = session.withContactList(Arrays.asList(a, b));
+    assertEquals(2, session.getContactList().size());
+    assertSame(newA, session.findByUserName("@a"));
+    assertNull(session.findByUserName("@b"));
+    assertSame(c, session.findByUserName("@c"));
+  }
+
+  /** answers webwxsendmsg, fails if url and body of one request mix credentials of two logins */
+  private static class SendMsgHttp extends Http {
+    @Override
+    public String postJson(String url, String json) {
+      JSONObject baseRequest = new JSONObject(json).getJSONObject("BaseRequest");
+      String generation = baseRequest.getString("Skey").substring(1);
+      assertEquals("i" + generation, baseRequest.getString("Sid"));
+      assertEquals("u" + generation, baseRequest.getString("Uin"));
+      assertTrue(url.endsWith("pass_ticket=p" + generation), url);
+      return "{\"BaseResponse\":{\"Ret\":0}}";
+    }
+  }
+}
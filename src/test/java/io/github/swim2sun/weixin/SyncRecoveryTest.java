@@ -0,0 +1,159 @@
+package io.github.swim2sun.weixin;
+
+import org.json.JSONArray;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Sync check recovery Tester, drives the sync loop of {@link Weixin} against a scripted server.
+ *
+ * @author swim2sun
+ * @version 1.0 2018-09-16.
+ */
+public class SyncRecoveryTest {
+  private static final String OK = "window.synccheck={retcode:\"0\",selector:\"0\"}";
+  private static final String NEW_MESSAGE = "window.synccheck={retcode:\"0\",selector:\"2\"}";
+  private static final String EXPIRED = "window.synccheck={retcode:\"1101\",selector:\"0\"}";
+
+  @Test
+  public void testRecoverWithBackoffAndFailOver() throws InterruptedException {
+    FakeHttp http = new FakeHttp(n -> n < 2 ? EXPIRED : OK);
+    BlockingQueue<Weixin.Status> statuses = new LinkedBlockingQueue<>();
+    long start = System.nanoTime();
+    try (Weixin weixin = start(http, 50, statuses)) {
+      assertEquals(Weixin.Status.RECONNECTING, statuses.poll(5, TimeUnit.SECONDS));
+      assertEquals(Weixin.Status.ONLINE, statuses.poll(5, TimeUnit.SECONDS));
+      assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50 + 100);
+      assertEquals(2, http.inits.get());
+      assertEquals("wx2.qq.com", http.syncCheckHosts.get(0));
+      assertEquals("wx2.qq.com", http.syncCheckHosts.get(1));
+      assertEquals("wx.qq.com", http.syncCheckHosts.get(2));
+      assertTrue(weixin.online());
+    }
+  }
+
+  @Test
+  public void testGiveUpAfterMaxRetries() throws InterruptedException {
+    FakeHttp http = new FakeHttp(n -> n == 0 ? OK : EXPIRED);
+    BlockingQueue<Weixin.Status> statuses = new LinkedBlockingQueue<>();
+    try (Weixin weixin = start(http, 1, statuses)) {
+      assertEquals(Weixin.Status.ONLINE, statuses.poll(5, TimeUnit.SECONDS));
+      assertEquals(Weixin.Status.RECONNECTING, statuses.poll(5, TimeUnit.SECONDS));
+      assertEquals(Weixin.Status.OFFLINE, statuses.poll(5, TimeUnit.SECONDS));
+      assertEquals(5, http.inits.get());
+      assertEquals(Weixin.Status.OFFLINE, weixin.getStatus());
+    }
+  }
+
+  @Test
+  public void testInterruptGoesOffline() throws InterruptedException {
+    FakeHttp http =
+        new FakeHttp(
+            n -> {
+              if (n == 1) {
+                // second wake-up waits before its sync, the wait is interrupted
+                Thread.currentThread().interrupt();
+              }
+              return NEW_MESSAGE;
+            });
+    BlockingQueue<Weixin.Status> statuses = new LinkedBlockingQueue<>();
+    try (Weixin weixin = start(http, 1, statuses)) {
+      assertEquals(Weixin.Status.ONLINE, statuses.poll(5, TimeUnit.SECONDS));
+      assertEquals(Weixin.Status.OFFLINE, statuses.poll(5, TimeUnit.SECONDS));
+      assertEquals(0, http.inits.get());
+      assertEquals(2, http.syncCheckHosts.size());
+    }
+  }
+
+  @Test
+  public void testCoalesceWakeUpsAndNotifyPhone() throws InterruptedException {
+    FakeHttp http = new FakeHttp(n -> NEW_MESSAGE);
+    http.addMsgList =
+        "[{\"MsgType\":51,\"StatusNotifyCode\":2,\"StatusNotifyUserName\":\"@a,@@b\"}]";
+    BlockingQueue<List<String>> operated = new LinkedBlockingQueue<>();
+    try (Weixin weixin = new Weixin(http, 1)) {
+      weixin.installCredentials(new Credentials("skey", "sid", "1", "ticket"));
+      weixin.addPhoneListener((code, userNames) -> operated.add(userNames));
+      weixin.startSyncCheck();
+      assertEquals(Arrays.asList("@a", "@@b"), operated.poll(5, TimeUnit.SECONDS));
+      Thread.sleep(500);
+      // wake-ups come every 5 ms, syncs at most every 100 ms
+      assertTrue(http.syncs.get() <= 7, "syncs: " + http.syncs.get());
+    }
+  }
+
+  private static Weixin start(
+      FakeHttp http, long initialBackoffMillis, BlockingQueue<Weixin.Status> statuses) {
+    Weixin weixin = new Weixin(http, initialBackoffMillis);
+    weixin.installCredentials(new Credentials("skey", "sid", "1", "ticket"));
+    weixin.addStatusListener(statuses::add);
+    weixin.startSyncCheck();
+    return weixin;
+  }
+
+  /** answers synccheck with the script, webwxinit and webwxsync with empty success */
+  private static class FakeHttp extends Http {
+    private static final String SYNC_KEY = "\"SyncKey\":{\"Count\":0,\"List\":[]}";
+
+    private final IntFunction<String> syncCheckScript;
+    private final List<String> syncCheckHosts = new CopyOnWriteArrayList<>();
+    private final AtomicInteger inits = new AtomicInteger();
+    private final AtomicInteger syncs = new AtomicInteger();
+    /** AddMsgList of every webwxsync response */
+    private volatile String addMsgList = "[]";
+
+    FakeHttp(IntFunction<String> syncCheckScript) {
+      this.syncCheckScript = syncCheckScript;
+    }
+
+    @Override
+    public String get(String url, Map<String, String> params) {
+      int start = url.indexOf("webpush.");
+      if (start < 0) {
+        throw new IllegalStateException("unexpected request: " + url);
+      }
+      try {
+        Thread.sleep(5);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      syncCheckHosts.add(url.substring(start + "webpush.".length(), url.indexOf("/cgi-bin")));
+      return syncCheckScript.apply(syncCheckHosts.size() - 1);
+    }
+
+    @Override
+    public String postJson(String url, String json) {
+      if (url.contains("webwxinit")) {
+        inits.incrementAndGet();
+        return "{\"BaseResponse\":{\"Ret\":0},\"SKey\":\"skey\","
+            + "\"User\":{\"Uin\":1,\"UserName\":\"@me\",\"NickName\":\"me\",\"HeadImgUrl\":\"\"},"
+            + SYNC_KEY
+            + "}";
+      }
+      if (url.contains("webwxsync")) {
+        syncs.incrementAndGet();
+        String msgList = addMsgList;
+        return "{\"BaseResponse\":{\"Ret\":0},\"AddMsgCount\":"
+            + new JSONArray(msgList).length()
+            + ",\"AddMsgList\":"
+            + msgList
+            + ","
+            + SYNC_KEY
+            + "}";
+      }
+      throw new IllegalStateException("unexpected request: " + url);
+    }
+  }
+}
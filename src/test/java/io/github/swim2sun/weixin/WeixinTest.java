@@ -1,16 +1,22 @@
 package io.github.swim2sun.weixin;
 
+import org.json.JSONObject;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -136,9 +142,101 @@ public class WeixinTest {
     IntStream.range(0, 1000)
         .forEach(
             i -> {
-              String did = Weixin.generateDeviceId();
+              String did = Context.generateDeviceId();
               assertTrue(did.startsWith("e"));
               assertEquals(did.length(), 16);
             });
   }
+
+  @Test
+  public void testSwitchHost() {
+    Context context = new Context();
+    String host = context.getHost();
+    assertNotEquals(host, context.switchHost());
+    assertEquals(host, context.switchHost());
+    context.setLoginHost("wx8.qq.com");
+    assertEquals("wx2.qq.com", context.switchHost());
+    assertEquals("wx8.qq.com", context.switchHost());
+    assertEquals("wx2.qq.com", context.switchHost());
+  }
+
+  @Test
+  public void testUpdateSyncKey() {
+    Context context = new Context();
+    JSONObject syncKey =
+        new JSONObject(
+            "{\"Count\":2,\"List\":[{\"Key\":1,\"Val\":695398127},{\"Key\":2,\"Val\":695398205}]}");
+    context.updateSyncKey(syncKey);
+    assertEquals("1_695398127|2_695398205", context.getSyncKey().getQuery());
+    assertEquals(syncKey.toString(), new JSONObject(context.getSyncKey().getJson()).toString());
+    context.updateSyncKey(new JSONObject("{\"Count\":1,\"List\":[{\"Key\":1,\"Val\":1}]}"));
+    assertEquals("1_1", context.getSyncKey().getQuery());
+    assertEquals(1, context.getSyncKey().getCount());
+  }
+
+  @Test
+  public void testBroadcastProgress() throws InterruptedException {
+    List<User> completed = new ArrayList<>();
+    Broadcast broadcast = new Broadcast(3, (u, r) -> completed.add(u));
+    User a = User.builder().userName("@a").build();
+    User b = User.builder().userName("@b").build();
+    User c = User.builder().userName("@c").build();
+    broadcast.complete(a, Broadcast.Result.SUCCESS);
+    broadcast.complete(b, Broadcast.Result.FAILED);
+    assertEquals(2, broadcast.getCompleted());
+    assertFalse(broadcast.isDone());
+    broadcast.complete(c, Broadcast.Result.CANCELLED);
+    assertTrue(broadcast.await(1, TimeUnit.SECONDS));
+    assertEquals(1, broadcast.getSucceeded());
+    assertEquals(1, broadcast.getFailed());
+    assertEquals(1, broadcast.getCancelled());
+    assertEquals(Broadcast.Result.FAILED, broadcast.getResults().get(b));
+    assertEquals(3, completed.size());
+  }
+
+  @Test
+  public void testLoginProfile() {
+    LoginProfile profile = new LoginProfile();
+    profile.qrcodeRequested();
+    profile.confirmed();
+    profile.record(LoginProfile.Phase.INIT, System.nanoTime());
+    assertTrue(profile.mark(LoginProfile.Phase.FIRST_MESSAGE));
+    assertFalse(profile.mark(LoginProfile.Phase.FIRST_MESSAGE));
+    assertNotNull(profile.getMillis(LoginProfile.Phase.WAIT_CONFIRM));
+    assertNull(profile.getMillis(LoginProfile.Phase.CONTACT_LIST));
+    assertEquals(3, profile.getPhases().size());
+  }
+
+  @Test
+  public void testMsgRoute() {
+    User alice = User.builder().userName("@alice").build();
+    User family = User.builder().userName("@@family").build();
+    JSONObject direct =
+        new JSONObject()
+            .put("MsgType", 1)
+            .put("FromUserName", "@alice")
+            .put("Content", "#todo buy milk");
+    JSONObject inGroup =
+        new JSONObject()
+            .put("MsgType", 1)
+            .put("FromUserName", "@@family")
+            .put("Content", "@alice:<br/>#todo call mom");
+
+    assertTrue(MsgRoute.ALL.matches(direct));
+    MsgRoute fromAlice = MsgRoute.builder().from(alice).contentPrefix("#todo").build();
+    assertTrue(fromAlice.matches(direct));
+    assertTrue(fromAlice.matches(inGroup));
+    MsgRoute familyOnly = MsgRoute.builder().group(family).contentRegex("call \\w+").build();
+    assertFalse(familyOnly.matches(direct));
+    assertTrue(familyOnly.matches(inGroup));
+    JSONObject sentToGroup =
+        new JSONObject()
+            .put("MsgType", 1)
+            .put("FromUserName", "@me")
+            .put("ToUserName", "@@family")
+            .put("Content", "call dad");
+    assertTrue(familyOnly.matches(sentToGroup));
+    MsgRoute textAt = MsgRoute.builder().type(Message.Type.TEXT).contentPrefix("@").build();
+    assertFalse(textAt.matches(inGroup));
+  }
 }